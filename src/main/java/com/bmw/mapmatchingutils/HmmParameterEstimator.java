@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2015-2016, BMW Car IT GmbH and BMW AG
+ * Author: Stefan Holder (stefan.holder@bmw.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bmw.mapmatchingutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Estimates the sigma and beta parameters of {@link HmmProbabilities} from matched or ground truth
+ * trajectories.
+ *
+ * Samples are grouped into buckets by sampling interval. For each bucket, only the sample count
+ * and a sum are stored, so memory does not depend on the number of samples and estimators of
+ * disjoint sample sets can be merged.
+ *
+ * Sigma is the maximum likelihood estimate of the zero-mean normal distribution used by
+ * {@link HmmProbabilities#emissionLogProbability(double)}. Beta is the maximum likelihood estimate
+ * of the exponential distribution of the normalized transition metric used by
+ * {@link HmmProbabilities#transitionLogProbability(double, double, double)}.
+ *
+ * This class is not thread-safe. Use one estimator per thread and merge them afterwards or use
+ * {@link #estimateInParallel(Iterator, SampleSource, int, double...)}.
+ */
+public class HmmParameterEstimator {
+
+    /**
+     * Adds the samples of a trajectory to an estimator.
+     *
+     * @param <T> trajectory type
+     */
+    public interface SampleSource<T> {
+
+        /**
+         * Calls {@link HmmParameterEstimator#addGpsError(double, double)} and
+         * {@link HmmParameterEstimator#addTransition(double, double, double, double)} for all
+         * samples of the given trajectory.
+         */
+        void addSamples(T trajectory, HmmParameterEstimator estimator);
+    }
+
+    /**
+     * Ascending upper bounds [s] of the sampling interval buckets. The last bucket contains
+     * all sampling intervals greater than the last bound.
+     */
+    private final double[] bucketBounds;
+
+    private final long[] gpsErrorCounts;
+    private final double[] gpsErrorSquareSums;
+    private final long[] transitionCounts;
+    private final double[] transitionMetricSums;
+
+    /**
+     * @param bucketBounds ascending upper bounds [s] of the sampling interval buckets. Bucket i
+     * contains sampling intervals in (bucketBounds[i-1], bucketBounds[i]]. An additional bucket
+     * contains all sampling intervals greater than the last bound. If no bounds are given, all
+     * samples are put into a single bucket.
+     */
+    public HmmParameterEstimator(double... bucketBounds) {
+        for (int i = 0; i < bucketBounds.length; i++) {
+            if (Double.isNaN(bucketBounds[i]) || Double.isInfinite(bucketBounds[i])) {
+                throw new IllegalArgumentException("Bucket bounds must be finite.");
+            }
+            if (i > 0 && !(bucketBounds[i] > bucketBounds[i - 1])) {
+                throw new IllegalArgumentException("Bucket bounds must be strictly ascending.");
+            }
+        }
+        this.bucketBounds = bucketBounds.clone();
+        final int bucketCount = bucketBounds.length + 1;
+        gpsErrorCounts = new long[bucketCount];
+        gpsErrorSquareSums = new double[bucketCount];
+        transitionCounts = new long[bucketCount];
+        transitionMetricSums = new double[bucketCount];
+    }
+
+    public int getBucketCount() {
+        return gpsErrorCounts.length;
+    }
+
+    /**
+     * Returns the index of the bucket containing the given sampling interval [s].
+     */
+    public int bucket(double samplingInterval) {
+        int bucket = Arrays.binarySearch(bucketBounds, samplingInterval);
+        return bucket >= 0 ? bucket : -bucket - 1;
+    }
+
+    /**
+     * @param samplingInterval nominal sampling interval [s] of the trajectory
+     * @param distance Absolute distance [m] between GPS measurement and true road position.
+     * @throws IllegalArgumentException if samplingInterval is not finite and > 0 or if distance
+     * is not finite and >= 0.
+     */
+    public void addGpsError(double samplingInterval, double distance) {
+        checkPositive("samplingInterval", samplingInterval);
+        checkNonNegative("distance", distance);
+        final int bucket = bucket(samplingInterval);
+        gpsErrorCounts[bucket]++;
+        gpsErrorSquareSums[bucket] += distance * distance;
+    }
+
+    /**
+     * @param samplingInterval nominal sampling interval [s] of the trajectory. Determines the
+     * bucket such that all samples of a trajectory are put into the same bucket even if the
+     * actual time differences jitter.
+     * @param routeLength Length of the route [m] between two consecutive true road positions.
+     * @param linearDistance Linear distance [m] between two consecutive GPS measurements.
+     * @param timeDiff time difference [s] between two consecutive GPS measurements.
+     * @throws IllegalArgumentException if samplingInterval or timeDiff is not finite and > 0 or
+     * if routeLength or linearDistance is not finite and >= 0. Note that in contrast,
+     * {@link HmmProbabilities#transitionLogProbability(double, double, double)} throws an
+     * IllegalStateException for negative time differences and accepts a time difference of 0.
+     */
+    public void addTransition(double samplingInterval, double routeLength, double linearDistance,
+            double timeDiff) {
+        checkPositive("samplingInterval", samplingInterval);
+        checkNonNegative("routeLength", routeLength);
+        checkNonNegative("linearDistance", linearDistance);
+        checkPositive("timeDiff", timeDiff);
+        final int bucket = bucket(samplingInterval);
+        transitionCounts[bucket]++;
+        transitionMetricSums[bucket] += HmmProbabilities.normalizedTransitionMetric(routeLength,
+                linearDistance, timeDiff);
+    }
+
+    /**
+     * Adds all samples of the other estimator to this estimator.
+     */
+    public void merge(HmmParameterEstimator other) {
+        if (!Arrays.equals(bucketBounds, other.bucketBounds)) {
+            throw new IllegalArgumentException("Estimators must have the same bucket bounds.");
+        }
+        for (int i = 0; i < getBucketCount(); i++) {
+            gpsErrorCounts[i] += other.gpsErrorCounts[i];
+            gpsErrorSquareSums[i] += other.gpsErrorSquareSums[i];
+            transitionCounts[i] += other.transitionCounts[i];
+            transitionMetricSums[i] += other.transitionMetricSums[i];
+        }
+    }
+
+    public long getGpsErrorCount(int bucket) {
+        return gpsErrorCounts[bucket];
+    }
+
+    public long getTransitionCount(int bucket) {
+        return transitionCounts[bucket];
+    }
+
+    /**
+     * Returns the estimated standard deviation [m] of the GPS error for the given bucket.
+     */
+    public double sigma(int bucket) {
+        if (gpsErrorCounts[bucket] == 0) {
+            throw new IllegalStateException("No GPS error samples in bucket " + bucket + ".");
+        }
+        return Math.sqrt(gpsErrorSquareSums[bucket] / gpsErrorCounts[bucket]);
+    }
+
+    /**
+     * Returns the estimated beta parameter of the transition probability distribution for the
+     * given bucket.
+     */
+    public double beta(int bucket) {
+        if (transitionCounts[bucket] == 0) {
+            throw new IllegalStateException("No transition samples in bucket " + bucket + ".");
+        }
+        return transitionMetricSums[bucket] / transitionCounts[bucket];
+    }
+
+    public HmmProbabilities hmmProbabilities(int bucket) {
+        return new HmmProbabilities(sigma(bucket), beta(bucket));
+    }
+
+    /**
+     * Adds the samples of all trajectories using the given number of threads.
+     *
+     * Each thread takes the next trajectory from the iterator and adds its samples to a
+     * thread-local estimator. Hence, trajectories can be read lazily and only one trajectory per
+     * thread needs to be kept in memory.
+     *
+     * If a thread fails, all other threads stop taking trajectories and the exception is
+     * rethrown. When this method returns or throws, all calls of the iterator and of the sample
+     * source have completed. Hence, the caller may safely release resources used by them.
+     * If the calling thread is interrupted while waiting for these calls, the interrupt is
+     * deferred until they have completed.
+     *
+     * @param trajectories is only accessed by one thread at a time and must not be accessed by
+     * other threads while this method is running.
+     * @param sampleSource is called concurrently and must therefore be thread-safe.
+     */
+    public static <T> HmmParameterEstimator estimateInParallel(final Iterator<T> trajectories,
+            final SampleSource<T> sampleSource, int threadCount, final double... bucketBounds)
+            throws InterruptedException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be >= 1.");
+        }
+        final HmmParameterEstimator result = new HmmParameterEstimator(bucketBounds);
+        // Guards the iterator.
+        final Object lock = new Object();
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final CompletionService<HmmParameterEstimator> completionService =
+                new ExecutorCompletionService<>(executor);
+        final List<Future<HmmParameterEstimator>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(completionService.submit(new Callable<HmmParameterEstimator>() {
+                    @Override
+                    public HmmParameterEstimator call() {
+                        final HmmParameterEstimator estimator =
+                                new HmmParameterEstimator(bucketBounds);
+                        try {
+                            while (!Thread.currentThread().isInterrupted()) {
+                                final T trajectory;
+                                synchronized (lock) {
+                                    if (stopped.get()) {
+                                        break;
+                                    }
+                                    try {
+                                        if (!trajectories.hasNext()) {
+                                            break;
+                                        }
+                                        trajectory = trajectories.next();
+                                    } catch (RuntimeException | Error e) {
+                                        // Stops while holding the lock so that no other thread
+                                        // takes a further trajectory.
+                                        stopped.set(true);
+                                        throw e;
+                                    }
+                                }
+                                sampleSource.addSamples(trajectory, estimator);
+                            }
+                        } catch (RuntimeException | Error e) {
+                            stopped.set(true);
+                            throw e;
+                        }
+                        return estimator;
+                    }
+                }));
+            }
+            // Takes the estimators in completion order so that failures are noticed at once.
+            for (int i = 0; i < threadCount; i++) {
+                result.merge(completionService.take().get());
+            }
+        } catch (ExecutionException e) {
+            // call() does not throw checked exceptions.
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        } finally {
+            stopped.set(true);
+            for (Future<HmmParameterEstimator> future : futures) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+            // Waits for a thread which is currently taking a trajectory from the iterator.
+            synchronized (lock) {
+            }
+            awaitTermination(executor);
+        }
+        return result;
+    }
+
+    /**
+     * Waits until all tasks of the executor have completed. An interrupt of the calling thread
+     * is deferred until then.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void checkPositive(String name, double value) {
+        // Also rejects NaN.
+        if (!(value > 0.0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(name + " must be finite and > 0 but is " + value
+                    + ".");
+        }
+    }
+
+    private static void checkNonNegative(String name, double value) {
+        // Also rejects NaN.
+        if (!(value >= 0.0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(name + " must be finite and >= 0 but is " + value
+                    + ".");
+        }
+    }
+
+}
@@ -83,7 +83,7 @@ public class HmmProbabilities {
      * time difference to make the beta parameter of the exponential distribution independent of the
      * sampling interval.
      */
-    private double normalizedTransitionMetric(double routeLength, double linearDistance,
+    static double normalizedTransitionMetric(double routeLength, double linearDistance,
             double timeDiff) {
         if (timeDiff < 0.0) {
             throw new IllegalStateException(
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2015-2016, BMW Car IT GmbH and BMW AG
+ * Author: Stefan Holder (stefan.holder@bmw.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bmw.mapmatchingutils;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Computes map matching candidates for consecutive location measurements while reusing road
+ * segments of previous radius queries.
+ *
+ * Instead of querying the road network with the search radius r for every measurement, the road
+ * network is queried with the enlarged radius r + margin around an anchor measurement and the
+ * returned road segments are cached. As long as a subsequent measurement is at most margin away
+ * from the anchor measurement, all road segments within r of the measurement are contained in
+ * the cache (triangle inequality). Candidates are then obtained by projecting the measurement onto
+ * the cached road segments and dropping projections farther away than r. Hence, the candidates
+ * are the same as for a fresh radius query, provided that the {@link RoadNetwork} satisfies
+ * the conditions stated in its method docs.
+ *
+ * This class is not thread-safe.
+ *
+ * @param <S> road position type, which corresponds to the HMM state.
+ * @param <O> location measurement type, which corresponds to the HMM observation.
+ * @param <E> road segment type
+ */
+public class IncrementalCandidateSearch<S, O, E> {
+
+    /**
+     * Provides access to the road network.
+     */
+    public interface RoadNetwork<S, O, E> {
+
+        /**
+         * Returns all road segments whose distance to the given measurement is at most the given
+         * radius [m].
+         *
+         * This distance and {@link #measurementDistance(Object, Object)} must together satisfy
+         * the triangle inequality. Otherwise, the cached road segments may miss candidates.
+         * Must not return null.
+         */
+        Collection<E> radiusQuery(O observation, double radius);
+
+        /**
+         * Returns the road position on the given road segment that is closest to the given
+         * measurement with respect to {@link #candidateDistance(Object, Object)}.
+         */
+        S project(O observation, E roadSegment);
+
+        /**
+         * Returns the distance [m] between the measurement and the road position.
+         * Must be the same metric as used by {@link #radiusQuery(Object, double)}.
+         */
+        double candidateDistance(O observation, S roadPosition);
+
+        /**
+         * Returns the distance [m] between two measurements.
+         * Must satisfy the triangle inequality together with the metric used by
+         * {@link #radiusQuery(Object, double)}.
+         */
+        double measurementDistance(O observation1, O observation2);
+    }
+
+    private final RoadNetwork<S, O, E> roadNetwork;
+    private final double radius;
+    private final double margin;
+
+    private O anchor = null;
+    private Collection<E> cachedRoadSegments = null;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param radius search radius [m] for map matching candidates
+     * @param margin distance [m] by which the radius of road network queries is enlarged. Larger
+     * values lead to fewer queries but to more road segments per query.
+     */
+    public IncrementalCandidateSearch(RoadNetwork<S, O, E> roadNetwork, double radius,
+            double margin) {
+        if (roadNetwork == null) {
+            throw new NullPointerException("roadNetwork must not be null.");
+        }
+        if (radius < 0.0 || margin < 0.0) {
+            throw new IllegalArgumentException("radius and margin must be >= 0.");
+        }
+        this.roadNetwork = roadNetwork;
+        this.radius = radius;
+        this.margin = margin;
+    }
+
+    /**
+     * Returns all road positions within the search radius of the given measurement mapped to
+     * their distance [m] to the measurement, which can be directly passed to
+     * {@link HmmProbabilities#emissionLogProbability(double)}.
+     * Queries the road network only if the measurement has left the cached region.
+     */
+    public Map<S, Double> computeCandidates(O observation) {
+        if (anchor != null && roadNetwork.measurementDistance(anchor, observation) <= margin) {
+            hits++;
+        } else {
+            // Update the cache only if the query succeeds.
+            final Collection<E> roadSegments =
+                    roadNetwork.radiusQuery(observation, radius + margin);
+            if (roadSegments == null) {
+                throw new NullPointerException("radiusQuery must not return null.");
+            }
+            cachedRoadSegments = roadSegments;
+            anchor = observation;
+            misses++;
+        }
+
+        final Map<S, Double> candidates = new LinkedHashMap<>();
+        for (E roadSegment : cachedRoadSegments) {
+            final S candidate = roadNetwork.project(observation, roadSegment);
+            final double distance = roadNetwork.candidateDistance(observation, candidate);
+            if (distance <= radius) {
+                candidates.put(candidate, distance);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Discards the cached road segments, e.g. when starting a new trip.
+     */
+    public void reset() {
+        anchor = null;
+        cachedRoadSegments = null;
+    }
+
+    /**
+     * Returns the number of measurements for which the cached road segments were reused.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of measurements for which the road network was queried.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of measurements for which the cached road segments were reused or
+     * 0 if no candidates have been computed yet.
+     */
+    public double getHitRate() {
+        final long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+}
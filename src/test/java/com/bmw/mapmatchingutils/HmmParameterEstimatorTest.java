@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2015-2016, BMW Car IT GmbH and BMW AG
+ * Author: Stefan Holder (stefan.holder@bmw.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bmw.mapmatchingutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.bmw.mapmatchingutils.HmmParameterEstimator.SampleSource;
+
+public class HmmParameterEstimatorTest {
+
+    private static double DELTA = 1e-8;
+
+    @Test
+    public void testBuckets() {
+        final HmmParameterEstimator estimator = new HmmParameterEstimator(1.0, 10.0);
+        assertEquals(3, estimator.getBucketCount());
+        assertEquals(0, estimator.bucket(0.5));
+        assertEquals(0, estimator.bucket(1.0));
+        assertEquals(1, estimator.bucket(5.0));
+        assertEquals(1, estimator.bucket(10.0));
+        assertEquals(2, estimator.bucket(60.0));
+
+        assertEquals(0, new HmmParameterEstimator().bucket(60.0));
+    }
+
+    @Test
+    public void testEstimate() {
+        final HmmParameterEstimator estimator = new HmmParameterEstimator(1.0, 10.0);
+        estimator.addGpsError(1.0, 3.0);
+        estimator.addGpsError(1.0, 4.0);
+        estimator.addGpsError(5.0, 2.0);
+
+        estimator.addTransition(1.0, 12.0, 10.0, 1.0);
+        estimator.addTransition(1.0, 10.0, 11.0, 1.0);
+        estimator.addTransition(2.0, 40.0, 20.0, 2.0);
+
+        assertEquals(Math.sqrt(12.5), estimator.sigma(0), DELTA);
+        assertEquals(2.0, estimator.sigma(1), DELTA);
+        assertEquals(1.5, estimator.beta(0), DELTA);
+        assertEquals(5.0, estimator.beta(1), DELTA);
+        assertEquals(0, estimator.getTransitionCount(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEmptyBucket() {
+        new HmmParameterEstimator(1.0).sigma(1);
+    }
+
+    @Test
+    public void testMerge() {
+        final HmmParameterEstimator estimator1 = new HmmParameterEstimator(1.0);
+        estimator1.addGpsError(1.0, 3.0);
+        estimator1.addTransition(1.0, 12.0, 10.0, 1.0);
+        final HmmParameterEstimator estimator2 = new HmmParameterEstimator(1.0);
+        estimator2.addGpsError(1.0, 4.0);
+        estimator2.addTransition(1.0, 10.0, 11.0, 1.0);
+
+        estimator1.merge(estimator2);
+        assertEquals(2, estimator1.getGpsErrorCount(0));
+        assertEquals(Math.sqrt(12.5), estimator1.sigma(0), DELTA);
+        assertEquals(1.5, estimator1.beta(0), DELTA);
+    }
+
+    @Test
+    public void testEstimateInParallel() throws InterruptedException {
+        // Each trajectory is given by its index i and has i GPS errors of 2 m and one
+        // transition with a normalized transition metric of 3.
+        final List<Integer> trajectories = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            trajectories.add(i);
+        }
+        final SampleSource<Integer> sampleSource = new SampleSource<Integer>() {
+            @Override
+            public void addSamples(Integer trajectory, HmmParameterEstimator estimator) {
+                for (int i = 0; i < trajectory; i++) {
+                    estimator.addGpsError(1.0, 2.0);
+                }
+                estimator.addTransition(1.0, 13.0, 10.0, 1.0);
+            }
+        };
+
+        final HmmParameterEstimator estimator = HmmParameterEstimator.estimateInParallel(
+                trajectories.iterator(), sampleSource, 4);
+        assertEquals(1000 * 999 / 2, estimator.getGpsErrorCount(0));
+        assertEquals(1000, estimator.getTransitionCount(0));
+        assertEquals(2.0, estimator.sigma(0), DELTA);
+        assertEquals(3.0, estimator.beta(0), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBucketBoundsNotAscending() {
+        new HmmParameterEstimator(10.0, 10.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroTimeDiff() {
+        new HmmParameterEstimator().addTransition(1.0, 10.0, 10.0, 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentBucketBounds() {
+        new HmmParameterEstimator(1.0).merge(new HmmParameterEstimator(2.0));
+    }
+
+    @Test
+    public void testJitteredTimeDiffs() {
+        final HmmParameterEstimator estimator = new HmmParameterEstimator(1.0, 10.0);
+        estimator.addGpsError(1.0, 2.0);
+        estimator.addTransition(1.0, 13.0, 10.0, 1.001);
+        estimator.addTransition(1.0, 13.0, 10.0, 0.999);
+
+        assertEquals(2, estimator.getTransitionCount(0));
+        assertEquals(0, estimator.getTransitionCount(1));
+        final double expectedBeta = (3.0 / (1.001 * 1.001) + 3.0 / (0.999 * 0.999)) / 2.0;
+        assertEquals(expectedBeta, estimator.beta(0), DELTA);
+        estimator.hmmProbabilities(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNaNBucketBound() {
+        new HmmParameterEstimator(Double.NaN, 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInfiniteBucketBound() {
+        new HmmParameterEstimator(1.0, Double.POSITIVE_INFINITY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNaNTimeDiff() {
+        new HmmParameterEstimator().addTransition(1.0, 1.0, 1.0, Double.NaN);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInfiniteRouteLength() {
+        new HmmParameterEstimator().addTransition(1.0, Double.POSITIVE_INFINITY, 1.0, 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeGpsError() {
+        new HmmParameterEstimator().addGpsError(1.0, -1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNaNGpsError() {
+        new HmmParameterEstimator().addGpsError(1.0, Double.NaN);
+    }
+
+    @Test
+    public void testInvalidSampleDoesNotChangeEstimate() {
+        final HmmParameterEstimator estimator = new HmmParameterEstimator();
+        estimator.addTransition(1.0, 13.0, 10.0, 1.0);
+        try {
+            estimator.addTransition(1.0, 13.0, 10.0, Double.NaN);
+            fail("Expected IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1, estimator.getTransitionCount(0));
+        assertEquals(3.0, estimator.beta(0), DELTA);
+    }
+
+    /*
+     * Returns the given number of trajectories 1, 2, ... and counts the calls of next().
+     */
+    private static Iterator<Integer> countingIterator(final int size,
+            final AtomicInteger consumed) {
+        return new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return consumed.get() < size;
+            }
+
+            @Override
+            public Integer next() {
+                return consumed.incrementAndGet();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void testEstimateInParallelFailure() throws InterruptedException {
+        // Trajectory 1 blocks until its thread is interrupted by estimateInParallel, which only
+        // happens after trajectory 2 has failed. The interrupt is swallowed so that only the
+        // stop flag keeps this thread from taking further trajectories.
+        final CountDownLatch neverReleased = new CountDownLatch(1);
+        final AtomicInteger consumed = new AtomicInteger();
+        final SampleSource<Integer> sampleSource = new SampleSource<Integer>() {
+            @Override
+            public void addSamples(Integer trajectory, HmmParameterEstimator estimator) {
+                if (trajectory == 1) {
+                    try {
+                        neverReleased.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (trajectory == 2) {
+                    throw new IllegalStateException("Invalid trajectory.");
+                }
+                estimator.addGpsError(1.0, 2.0);
+            }
+        };
+
+        try {
+            HmmParameterEstimator.estimateInParallel(countingIterator(1000, consumed),
+                    sampleSource, 2);
+            fail("Expected exception from sample source.");
+        } catch (IllegalStateException e) {
+            assertEquals("Invalid trajectory.", e.getMessage());
+        }
+        assertEquals(2, consumed.get());
+    }
+
+    @Test
+    public void testEstimateInParallelIteratorFailure() throws InterruptedException {
+        final AtomicInteger consumed = new AtomicInteger();
+        final Iterator<Integer> counting = countingIterator(1000, consumed);
+        final Iterator<Integer> trajectories = new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return counting.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                final Integer trajectory = counting.next();
+                if (trajectory == 10) {
+                    throw new IllegalStateException("Cannot read trajectory.");
+                }
+                return trajectory;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        final SampleSource<Integer> sampleSource = new SampleSource<Integer>() {
+            @Override
+            public void addSamples(Integer trajectory, HmmParameterEstimator estimator) {
+                estimator.addGpsError(1.0, 2.0);
+            }
+        };
+
+        try {
+            HmmParameterEstimator.estimateInParallel(trajectories, sampleSource, 4);
+            fail("Expected exception from iterator.");
+        } catch (IllegalStateException e) {
+            assertEquals("Cannot read trajectory.", e.getMessage());
+        }
+        assertEquals(10, consumed.get());
+    }
+
+}
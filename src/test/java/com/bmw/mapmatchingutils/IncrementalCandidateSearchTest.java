@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2015-2016, BMW Car IT GmbH and BMW AG
+ * Author: Stefan Holder (stefan.holder@bmw.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bmw.mapmatchingutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bmw.mapmatchingutils.IncrementalCandidateSearch.RoadNetwork;
+import com.bmw.mapmatchingutils.types.GpsMeasurement;
+import com.bmw.mapmatchingutils.types.Point;
+import com.bmw.mapmatchingutils.types.RoadPosition;
+
+public class IncrementalCandidateSearchTest {
+
+    private static double DELTA = 1e-8;
+
+    /*
+     * Horizontal road segments y = 0, y = 20 and y = 100 with x in [0, 1000].
+     */
+    private final static List<Double> roadSegments = Arrays.asList(0.0, 20.0, 100.0);
+
+    private static class Network implements RoadNetwork<RoadPosition, GpsMeasurement, Double> {
+
+        int queries = 0;
+        boolean failQueries = false;
+        boolean nullQueries = false;
+
+        @Override
+        public Collection<Double> radiusQuery(GpsMeasurement observation, double radius) {
+            queries++;
+            if (failQueries) {
+                throw new IllegalStateException("Query failed.");
+            }
+            if (nullQueries) {
+                return null;
+            }
+            final List<Double> result = new ArrayList<>();
+            for (Double y : roadSegments) {
+                if (Math.abs(observation.position.y - y) <= radius) {
+                    result.add(y);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public RoadPosition project(GpsMeasurement observation, Double y) {
+            return new RoadPosition(y.longValue(), observation.position.x / 1000.0,
+                    observation.position.x, y);
+        }
+
+        @Override
+        public double candidateDistance(GpsMeasurement observation, RoadPosition roadPosition) {
+            return distance(observation.position, roadPosition.position);
+        }
+
+        @Override
+        public double measurementDistance(GpsMeasurement observation1,
+                GpsMeasurement observation2) {
+            return distance(observation1.position, observation2.position);
+        }
+
+        private double distance(Point p1, Point p2) {
+            final double xDiff = p1.x - p2.x;
+            final double yDiff = p1.y - p2.y;
+            return Math.sqrt(xDiff * xDiff + yDiff * yDiff);
+        }
+    }
+
+    private static List<Long> edgeIds(Map<RoadPosition, Double> candidates) {
+        final List<Long> result = new ArrayList<>();
+        for (RoadPosition candidate : candidates.keySet()) {
+            result.add(candidate.edgeId);
+        }
+        return result;
+    }
+
+    /*
+     * Computes the candidates as without the cache.
+     */
+    private static Map<RoadPosition, Double> freshCandidates(Network network,
+            GpsMeasurement gps, double radius) {
+        final Map<RoadPosition, Double> result = new LinkedHashMap<>();
+        for (Double roadSegment : network.radiusQuery(gps, radius)) {
+            final RoadPosition candidate = network.project(gps, roadSegment);
+            final double distance = network.candidateDistance(gps, candidate);
+            if (distance <= radius) {
+                result.put(candidate, distance);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testCandidatesEqualFreshRadiusQuery() {
+        final Network network = new Network();
+        final Network freshNetwork = new Network();
+        final IncrementalCandidateSearch<RoadPosition, GpsMeasurement, Double> search =
+                new IncrementalCandidateSearch<>(network, 30.0, 10.0);
+
+        // Every 4th measurement is exactly margin away from the anchor. Road segments are
+        // exactly radius away from the measurements at y = 30, 50, 70 and 130.
+        for (int i = 0; i < 55; i++) {
+            final double y = 5.0 + 2.5 * i;
+            final GpsMeasurement gps = new GpsMeasurement(new Date(i * 1000), 100, y);
+            final Map<RoadPosition, Double> candidates = search.computeCandidates(gps);
+            final Map<RoadPosition, Double> expected = freshCandidates(freshNetwork, gps, 30.0);
+            assertEquals("y = " + y, edgeIds(expected), edgeIds(candidates));
+            assertEquals("y = " + y, new ArrayList<>(expected.values()),
+                    new ArrayList<>(candidates.values()));
+        }
+
+        assertEquals(44, search.getHits());
+        assertEquals(11, search.getMisses());
+        assertEquals(11, network.queries);
+    }
+
+    @Test
+    public void testCandidates() {
+        final Network network = new Network();
+        final IncrementalCandidateSearch<RoadPosition, GpsMeasurement, Double> search =
+                new IncrementalCandidateSearch<>(network, 30.0, 50.0);
+
+        // Cache is filled with all road segments.
+        Map<RoadPosition, Double> candidates = search.computeCandidates(
+                new GpsMeasurement(new Date(0), 100, 50));
+        assertEquals(Arrays.asList(20L), edgeIds(candidates));
+        assertEquals(Arrays.asList(30.0), new ArrayList<>(candidates.values()));
+        assertEquals(1, network.queries);
+
+        // Reuses the cache but road segment 100 is out of radius.
+        candidates = search.computeCandidates(new GpsMeasurement(new Date(1000), 110, 25));
+        assertEquals(Arrays.asList(0L, 20L), edgeIds(candidates));
+        assertEquals(110.0, candidates.keySet().iterator().next().position.x, DELTA);
+        assertEquals(Arrays.asList(25.0, 5.0), new ArrayList<>(candidates.values()));
+        assertEquals(1, network.queries);
+
+        // Leaves the cached region.
+        candidates = search.computeCandidates(new GpsMeasurement(new Date(2000), 200, 10));
+        assertEquals(Arrays.asList(0L, 20L), edgeIds(candidates));
+        assertEquals(2, network.queries);
+
+        assertEquals(1, search.getHits());
+        assertEquals(2, search.getMisses());
+        assertEquals(1.0 / 3.0, search.getHitRate(), DELTA);
+    }
+
+    @Test
+    public void testReset() {
+        final Network network = new Network();
+        final IncrementalCandidateSearch<RoadPosition, GpsMeasurement, Double> search =
+                new IncrementalCandidateSearch<>(network, 30.0, 50.0);
+        final GpsMeasurement gps = new GpsMeasurement(new Date(0), 100, 50);
+        search.computeCandidates(gps);
+        search.reset();
+        search.computeCandidates(gps);
+        assertEquals(2, network.queries);
+        assertEquals(0.0, search.getHitRate(), DELTA);
+    }
+
+    @Test
+    public void testFailedQuery() {
+        final Network network = new Network();
+        final IncrementalCandidateSearch<RoadPosition, GpsMeasurement, Double> search =
+                new IncrementalCandidateSearch<>(network, 30.0, 50.0);
+        search.computeCandidates(new GpsMeasurement(new Date(0), 100, 50));
+
+        // Leaves the cached region but the query fails.
+        network.failQueries = true;
+        try {
+            search.computeCandidates(new GpsMeasurement(new Date(1000), 100, 130));
+            fail("Expected failed query.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // Within the margin of the failed query but not of the cached query.
+        network.failQueries = false;
+        final Map<RoadPosition, Double> candidates =
+                search.computeCandidates(new GpsMeasurement(new Date(2000), 100, 120));
+        assertEquals(Arrays.asList(100L), edgeIds(candidates));
+        assertEquals(3, network.queries);
+        assertEquals(0, search.getHits());
+        assertEquals(2, search.getMisses());
+    }
+
+    @Test
+    public void testNullQueryResult() {
+        final Network network = new Network();
+        final IncrementalCandidateSearch<RoadPosition, GpsMeasurement, Double> search =
+                new IncrementalCandidateSearch<>(network, 30.0, 50.0);
+        network.nullQueries = true;
+        try {
+            search.computeCandidates(new GpsMeasurement(new Date(0), 100, 50));
+            fail("Expected NullPointerException.");
+        } catch (NullPointerException e) {
+            assertEquals("radiusQuery must not return null.", e.getMessage());
+        }
+
+        // The failed query must not be cached.
+        network.nullQueries = false;
+        search.computeCandidates(new GpsMeasurement(new Date(1000), 100, 50));
+        assertEquals(2, network.queries);
+        assertEquals(0, search.getHits());
+        assertEquals(1, search.getMisses());
+    }
+
+}